@@ -25,7 +25,6 @@ public class Client {
 
 	// unit separator
 	public static final char SEP = 31;
-	public static final char GROUPSEP = 29;
 
 	// client info
 	private final int TPS = 60; // client ticks per second
@@ -35,6 +34,8 @@ public class Client {
 	private BufferedReader reader;
 	private Player player;
 	private byte[] inData;
+	private Snapshot snapshot; // newest snapshot from the server
+	private int serverTick = -1; // server tick of the newest snapshot, sent back so the server knows our lag
 
 	// connecting server info
 	private int port = -1; // port of server
@@ -89,7 +90,8 @@ public class Client {
 		// send data to server
 		byte[] outData = new byte[1024];
 		int tempPos = edit(outData, clientName, 0);
-		player.addInfo(outData, tempPos);
+		tempPos = player.addInfo(outData, tempPos);
+		edit(outData, serverTick, tempPos);
 		// message("Sent data to server " + Arrays.toString(outData));
 		DatagramPacket sPacket = new DatagramPacket(outData, outData.length, serverIP, port);
 
@@ -109,6 +111,8 @@ public class Client {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		snapshot = Snapshot.read(inData);
+		serverTick = snapshot.tick;
 		// message("Received data from server " + Arrays.toString(inData));
 	}
 
@@ -141,7 +145,7 @@ public class Client {
 		// clear screen
 		g.clearRect(0, 0, WIDTH, HEIGHT);
 
-		display.render(g, inData);
+		display.render(g, snapshot);
 
 		bs.show();
 		g.dispose();
@@ -341,54 +345,41 @@ public class Client {
 			}
 		}
 
-		public void render(Graphics g, byte[] inData) {
-			Graphics2D g2 = (Graphics2D) g;
-			String receivedData = new String(inData);
-			String[] groups = receivedData.split(GROUPSEP + "");
-			String[] data1 = groups[0].split(SEP + ""); // player data
-			String[] data2 = groups[1].split(SEP + ""); // circle data
-			String[] data3 = groups[2].split(SEP + ""); // initial count-down clock data
-			String[] data4 = groups[3].split(SEP + ""); // game timer clock data
+		// format a clock sent in hundredths of a second, null if the server isn't showing it
+		private String formatClock(int clock) {
+			if (clock == Snapshot.NOT_SHOWING)
+				return null;
+			return String.format("%.2f", clock / 100.0);
+		}
 
-			// player data
-			int numPacketsPerPlayer = 7; // number of packets sent per player
-			Player[] players = new Player[data1.length / numPacketsPerPlayer];
+		public void render(Graphics g, Snapshot snapshot) {
+			Graphics2D g2 = (Graphics2D) g;
 
 			// read in player data
-			for (int i = 0; i < players.length; i ++) {
-				int idx = i*numPacketsPerPlayer;
-				int pX = Integer.parseInt(data1[idx + 1]);
-				int pY = Integer.parseInt(data1[idx + 2]);
-				int R = Integer.parseInt(data1[idx + 3]);
-				int G = Integer.parseInt(data1[idx + 4]);
-				int B = Integer.parseInt(data1[idx + 5]);
-				int score = Integer.parseInt(data1[idx + 6]);
-				players[i] = new Player(data1[idx], pX, pY, new Color(R, G, B), score);
+			Player[] players = new Player[snapshot.players.size()];
+			for (int i = 0; i < players.length; i++) {
+				Snapshot.PlayerInfo p = snapshot.players.get(i);
+				players[i] = new Player(p.name, p.x, p.y, new Color(p.R, p.G, p.B), p.score);
 			}
 
 			// render circles
-			for (int i = 0; i < data2.length - 6; i += 7) {
-				int cX = Integer.parseInt(data2[i]);
-				int cY = Integer.parseInt(data2[i + 1]);
-				int fullRadius = Integer.parseInt(data2[i + 2]);
-				int currRadius = Integer.parseInt(data2[i + 3]);
-				int R = Integer.parseInt(data2[i + 4]);
-				int G = Integer.parseInt(data2[i + 5]);
-				int B = Integer.parseInt(data2[i + 6]);
-				renderCenteredCircle(g2, cX, cY, fullRadius, currRadius, new Color(R, G, B));
-			}
+			for (Snapshot.CircleInfo c : snapshot.circles)
+				renderCenteredCircle(g2, c.x, c.y, c.fullRadius, c.currentRadius, Snapshot.CIRCLE_COLORS[c.difficulty]);
+
+			String countDown = formatClock(snapshot.countDown); // initial count-down clock data
+			String timer = formatClock(snapshot.timer); // game timer clock data
 
 			// render stuff before game starts
-			if (data3[0].length() > 0) {
+			if (countDown != null) {
 				renderHow2Play(g2);
 				g2.setColor(Color.RED);
 				g2.setFont(new Font("Didot", Font.BOLD, 100));
-				renderCenteredString(g2, data3[0], width / 2, height / 2);
+				renderCenteredString(g2, countDown, width / 2, height / 2);
 			} else { // render timer clock
-				if (data4[0].length() > 0) { // timer is still going
+				if (timer != null) { // timer is still going
 					g2.setColor(Color.BLUE);
 					g2.setFont(new Font("Didot", Font.BOLD, 100));
-					renderCenteredString(g2, data4[0], width / 2, height / 2);
+					renderCenteredString(g2, timer, width / 2, height / 2);
 				} else { // game is over
 					renderLeaderboard(g2, players);
 					// running = false;
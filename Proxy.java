@@ -0,0 +1,337 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// sits between clients and the server and makes the network worse on purpose
+// clients connect to the proxy port instead of the server port
+public class Proxy {
+
+	// proxy info
+	private volatile boolean running;
+	private int port = -1; // port clients connect to
+	private DatagramSocket proxySocket = null;
+
+	// connecting server info
+	private int serverPort = -1;
+	private InetAddress serverIP = null;
+	private InetSocketAddress serverAddress = null;
+
+	// impairments for each direction
+	private Link upstream; // client to server
+	private Link downstream; // server to client
+
+	// each client gets its own socket to the server so replies find their way back
+	// (the server tells players apart by address and port, so every client here is its own player)
+	private HashMap<SocketAddress, DatagramSocket> sessions;
+	private ScheduledExecutorService scheduler;
+
+	// other variables
+	private static Random rand = new Random();
+
+	public Proxy() {
+		try {
+			setup();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// for running from tests, port 0 picks any free port (see getPort())
+	public Proxy(int port, InetAddress serverIP, int serverPort) throws IOException {
+		this.serverIP = serverIP;
+		this.serverPort = serverPort;
+		proxySocket = new DatagramSocket(port);
+		this.port = proxySocket.getLocalPort();
+		init();
+	}
+
+	private void message(String m) {
+		System.out.println("System: " + m);
+	}
+
+	private int askInt(BufferedReader br, String question) throws IOException {
+		message(question);
+		System.out.print("> ");
+		String line = br.readLine().trim();
+		return line.isEmpty() ? 0 : Integer.parseInt(line);
+	}
+
+	private double askDouble(BufferedReader br, String question) throws IOException {
+		message(question);
+		System.out.print("> ");
+		String line = br.readLine().trim();
+		return line.isEmpty() ? 0 : Double.parseDouble(line);
+	}
+
+	private void setup() throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+		message("What is the IP address of the server?");
+		System.out.print("> ");
+		serverIP = InetAddress.getByName(br.readLine());
+		serverPort = askInt(br, "What port is the server on?");
+		port = askInt(br, "What port would you like the proxy on?");
+		proxySocket = new DatagramSocket(port);
+		init();
+
+		// same settings are used for both directions, so delay is half of the RTT
+		int delay = askInt(br, "One-way delay in ms? (blank for 0)");
+		int jitter = askInt(br, "Jitter in ms? (blank for 0)");
+		double loss = askDouble(br, "Loss chance from 0 to 1? (blank for 0)");
+		double duplicate = askDouble(br, "Duplicate chance from 0 to 1? (blank for 0)");
+		double reorder = askDouble(br, "Reorder chance from 0 to 1? (blank for 0)");
+		int bandwidth = askInt(br, "Bandwidth cap in bytes per second? (blank for none)");
+		for (Link link : new Link[] { upstream, downstream }) {
+			link.setDelay(delay).setJitter(jitter).setLoss(loss);
+			link.setDuplicate(duplicate).setReorder(reorder).setBandwidth(bandwidth);
+		}
+
+		message("Setup Complete!");
+	}
+
+	private void init() {
+		serverAddress = new InetSocketAddress(serverIP, serverPort);
+		upstream = new Link();
+		downstream = new Link();
+		sessions = new HashMap<SocketAddress, DatagramSocket>();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	// hands a packet to the link and schedules every copy that survives it
+	private void forward(Link link, DatagramSocket socket, byte[] data, SocketAddress to) {
+		for (long delay : link.plan(data.length)) {
+			try {
+				scheduler.schedule(() -> {
+					try {
+						socket.send(new DatagramPacket(data, data.length, to));
+						link.delivered();
+					} catch (IOException e) {
+						if (running)
+							e.printStackTrace();
+					}
+				}, delay, TimeUnit.MICROSECONDS);
+			} catch (RejectedExecutionException e) {
+				return; // proxy was stopped while this packet was on its way through
+			}
+		}
+	}
+
+	// find (or open) the socket used to talk to the server for this client
+	private DatagramSocket session(SocketAddress clientAddress) throws IOException {
+		synchronized (sessions) {
+			DatagramSocket socket = sessions.get(clientAddress);
+			if (socket == null) {
+				socket = new DatagramSocket();
+				sessions.put(clientAddress, socket);
+				DatagramSocket serverSide = socket;
+				Thread t = new Thread(() -> relayDown(serverSide, clientAddress), "proxy-" + clientAddress);
+				t.setDaemon(true);
+				t.start();
+			}
+			return socket;
+		}
+	}
+
+	// server to client
+	private void relayDown(DatagramSocket serverSide, SocketAddress clientAddress) {
+		byte[] inData = new byte[2048];
+		while (running) {
+			DatagramPacket packet = new DatagramPacket(inData, inData.length);
+			try {
+				serverSide.receive(packet);
+			} catch (IOException e) {
+				if (running)
+					e.printStackTrace();
+				return;
+			}
+			byte[] data = Arrays.copyOf(packet.getData(), packet.getLength());
+			forward(downstream, proxySocket, data, clientAddress);
+		}
+	}
+
+	// client to server
+	public void run() {
+		running = true;
+		message("Proxy is forwarding port '" + port + "' to '" + serverIP + "' on port '" + serverPort + "'");
+		byte[] inData = new byte[2048];
+		while (running) {
+			DatagramPacket packet = new DatagramPacket(inData, inData.length);
+			try {
+				proxySocket.receive(packet);
+				byte[] data = Arrays.copyOf(packet.getData(), packet.getLength());
+				DatagramSocket serverSide = session(packet.getSocketAddress());
+				forward(upstream, serverSide, data, serverAddress);
+			} catch (IOException e) {
+				if (running)
+					e.printStackTrace();
+			}
+		}
+	}
+
+	// runs the proxy on a background thread, for tests
+	public Thread start() {
+		running = true;
+		Thread t = new Thread(this::run, "proxy");
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	public void stop() {
+		running = false;
+		scheduler.shutdownNow();
+		proxySocket.close();
+		synchronized (sessions) {
+			for (DatagramSocket socket : sessions.values())
+				socket.close();
+			sessions.clear();
+		}
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public Link getUpstream() {
+		return upstream;
+	}
+
+	public Link getDownstream() {
+		return downstream;
+	}
+
+	// impairment settings and counters for one direction
+	// settings can be changed while the proxy is running
+	public static class Link {
+		// extra hold time for a packet picked to be reordered
+		public static final int REORDER_HOLD = 20;
+
+		// delay and jitter in ms, jitter is spread evenly over +/- jitter
+		private int delay, jitter;
+		// chances from 0 to 1
+		private double loss, duplicate, reorder;
+		// bytes per second, 0 means no cap
+		private int bandwidth;
+		// times (in microseconds, System.nanoTime() based) the link is busy until
+		// and the latest any packet so far is due to arrive
+		private long busyUntil, latestArrival;
+
+		// counters, reordered counts packets that arrive before one that was sent earlier
+		private long received, dropped, duplicated, reordered, delivered;
+
+		// returns delays (in microseconds) for every copy of a packet to send
+		// an empty array means the packet was lost
+		synchronized long[] plan(int size) {
+			received++;
+			if (rand.nextDouble() < loss) {
+				dropped++;
+				return new long[0];
+			}
+
+			int copies = 1;
+			if (rand.nextDouble() < duplicate) {
+				duplicated++;
+				copies++;
+			}
+			long now = System.nanoTime() / 1000;
+			long sentEarlier = latestArrival; // copies of this packet don't count against each other
+			boolean overtook = false;
+			long[] delays = new long[copies];
+			for (int i = 0; i < copies; i++) {
+				// every copy queues up behind the ones before it when there is a bandwidth cap
+				long d = 0;
+				if (bandwidth > 0) {
+					busyUntil = Math.max(busyUntil, now) + size * 1000000L / bandwidth;
+					d = busyUntil - now;
+				}
+				d += delay * 1000L;
+				if (jitter > 0)
+					d += rand.nextLong(-jitter * 1000L, jitter * 1000L + 1);
+				// held packets only end up reordered if something sent after them gets there first
+				if (rand.nextDouble() < reorder)
+					d += REORDER_HOLD * 1000L;
+				delays[i] = Math.max(0, d);
+				overtook |= now + delays[i] < sentEarlier;
+				latestArrival = Math.max(latestArrival, now + delays[i]);
+			}
+			if (overtook)
+				reordered++;
+			return delays;
+		}
+
+		synchronized void delivered() {
+			delivered++;
+		}
+
+		public synchronized void resetCounters() {
+			received = dropped = duplicated = reordered = delivered = 0;
+		}
+
+		public synchronized Link setDelay(int delay) {
+			this.delay = delay;
+			return this;
+		}
+
+		public synchronized Link setJitter(int jitter) {
+			this.jitter = jitter;
+			return this;
+		}
+
+		public synchronized Link setLoss(double loss) {
+			this.loss = loss;
+			return this;
+		}
+
+		public synchronized Link setDuplicate(double duplicate) {
+			this.duplicate = duplicate;
+			return this;
+		}
+
+		public synchronized Link setReorder(double reorder) {
+			this.reorder = reorder;
+			return this;
+		}
+
+		public synchronized Link setBandwidth(int bandwidth) {
+			this.bandwidth = bandwidth;
+			return this;
+		}
+
+		public synchronized long getReceived() {
+			return received;
+		}
+
+		public synchronized long getDropped() {
+			return dropped;
+		}
+
+		public synchronized long getDuplicated() {
+			return duplicated;
+		}
+
+		public synchronized long getReordered() {
+			return reordered;
+		}
+
+		public synchronized long getDelivered() {
+			return delivered;
+		}
+	}
+
+	public static void main(String[] args) {
+		Proxy proxy = new Proxy();
+		proxy.run();
+	}
+
+}
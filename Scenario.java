@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+// runs bot clients through a Proxy against a running Server and measures how many snapshots they get
+// for example, 2 bots for 10 seconds at 40 ms each way (80 ms RTT) with 5% loss each way,
+// failing if any bot gets under 50 snapshots per second:
+//   java Scenario localhost 4000 2 10 40 0.05 50
+public class Scenario {
+
+	// unit separator
+	public static final char SEP = 31;
+
+	// bots send as often as Client does, but never wait for a reply so a lost packet can't stall them
+	private final int TPS = 60;
+
+	private Proxy proxy;
+
+	public Scenario(InetAddress serverIP, int serverPort) throws IOException {
+		proxy = new Proxy(0, serverIP, serverPort);
+	}
+
+	// set up the network through getProxy() before calling run()
+	public Proxy getProxy() {
+		return proxy;
+	}
+
+	// runs the given number of bots for the given time through the proxy
+	// returns the snapshots per second received by the slowest bot
+	public double run(int clients, int seconds) throws IOException, InterruptedException {
+		proxy.start();
+		Bot[] bots = new Bot[clients];
+		for (int i = 0; i < clients; i++)
+			bots[i] = new Bot("bot" + (i + 1));
+
+		long end = System.nanoTime() + seconds * 1000000000L;
+		while (System.nanoTime() < end) {
+			for (Bot bot : bots)
+				bot.sendData();
+			Thread.sleep(1000 / TPS);
+		}
+
+		double slowest = Double.MAX_VALUE;
+		for (Bot bot : bots) {
+			bot.close();
+			slowest = Math.min(slowest, (bot.snapshots + 0.0) / seconds);
+		}
+		proxy.stop();
+		return slowest;
+	}
+
+	// speaks the same protocol as Client, standing still in the middle of the screen
+	private class Bot {
+		String name;
+		DatagramSocket socket;
+		volatile int serverTick = -1; // server tick of the newest snapshot
+		volatile int snapshots = 0; // snapshots received so far
+
+		public Bot(String name) throws SocketException {
+			this.name = name;
+			socket = new DatagramSocket();
+			socket.setSoTimeout(1000);
+			Thread t = new Thread(this::receiveData, name);
+			t.setDaemon(true);
+			t.start();
+		}
+
+		void sendData() throws IOException {
+			String str = name + SEP + 500 + SEP + 250 + SEP + 0 + SEP + 0 + SEP + 0 + SEP + serverTick + SEP;
+			byte[] outData = str.getBytes();
+			socket.send(new DatagramPacket(outData, outData.length, InetAddress.getLoopbackAddress(),
+					proxy.getPort()));
+		}
+
+		void receiveData() {
+			byte[] inData = new byte[Snapshot.MAX_PACKET];
+			while (!socket.isClosed()) {
+				DatagramPacket packet = new DatagramPacket(inData, inData.length);
+				try {
+					socket.receive(packet);
+				} catch (SocketTimeoutException e) {
+					continue;
+				} catch (IOException e) {
+					return; // bot was closed
+				}
+				serverTick = Snapshot.read(inData).tick;
+				snapshots++;
+			}
+		}
+
+		void close() {
+			socket.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 7) {
+			System.out.println("Usage: java Scenario <server ip> <server port> <clients> <seconds> "
+					+ "<one-way delay ms> <loss 0 to 1> <minimum snapshots per second>");
+			return;
+		}
+		Scenario scenario = new Scenario(InetAddress.getByName(args[0]), Integer.parseInt(args[1]));
+		int delay = Integer.parseInt(args[4]);
+		double loss = Double.parseDouble(args[5]);
+		scenario.getProxy().getUpstream().setDelay(delay).setLoss(loss);
+		scenario.getProxy().getDownstream().setDelay(delay).setLoss(loss);
+
+		double rate = scenario.run(Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+		double minimum = Double.parseDouble(args[6]);
+		System.out.println(String.format("Slowest bot got %.1f snapshots per second (needed %.1f)", rate, minimum));
+		if (rate < minimum)
+			System.exit(1);
+	}
+
+}
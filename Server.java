@@ -1,37 +1,58 @@
-import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
 
 public class Server {
 
 	// unit separator
 	public static final char SEP = 31;
-	public static final char GROUPSEP = 29;
 
 	// server info
 	private final int TPS = 100; // server ticks per second
 	private boolean running;
 	private int port = -1;
-	private DatagramSocket serverSocket = null;
+	// non-blocking, so packets that are already waiting can be taken without ever stalling a tick
+	private DatagramChannel serverChannel = null;
+	private Selector selector = null; // wakes the server up when a packet arrives
+	private long tickCount = 0; // number of ticks since the server started
+	private Governor governor = new Governor();
+
+	// data received from client(s)
+	private byte[] inData = new byte[512];
+	private ByteBuffer inBuffer = ByteBuffer.wrap(inData);
+	// packets that arrive once the next tick is due are still taken in, up to this many
+	private static final int MAX_LATE_PACKETS = 64;
 
 	// data to sent back to client(s)
-	private DatagramPacket serverPacket;
+	private Snapshot snapshot = new Snapshot();
+	private Snapshot.Writer snapshotData = new Snapshot.Writer(); // snapshot packed into bits
+	// everyone who sent a packet since the last snapshot went out, they each get the next one
+	// players and spectators are kept apart so spectators can be answered less often when overloaded
+	private HashSet<SocketAddress> replyTo = new HashSet<SocketAddress>();
+	private HashSet<SocketAddress> spectatorReplyTo = new HashSet<SocketAddress>();
 
 	// display info
 	private static final int WIDTH = 1000, HEIGHT = 500;
 
 	// game data
-	private HashMap<InetAddress, ClientPlayer> clientData;
+	// players are told apart by address and port, so several clients on one machine (or behind Proxy) each get one
+	private HashMap<SocketAddress, ClientPlayer> clientData;
 	private ArrayList<Circle> circles;
+	private ArrayList<Circle> finishedCircles; // done growing, waiting for players to report seeing that
 	private long timer = 15 * TPS; // timer starts counting down when game starts
 	private boolean countDown = true; // initial count-down clock before game starts
 	private int waitTime = 10 * TPS; // ticks to wait before spawning the next circle
@@ -58,7 +79,11 @@ public class Server {
 			e.printStackTrace();
 		}
 		try {
-			serverSocket = new DatagramSocket(port);
+			serverChannel = DatagramChannel.open();
+			serverChannel.bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_READ);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -66,131 +91,176 @@ public class Server {
 		message("Setup Complete!");
 
 		// sets up player data Hash-Map
-		clientData = new HashMap<InetAddress, ClientPlayer>();
+		clientData = new HashMap<SocketAddress, ClientPlayer>();
 
 		// sets up ArrayList of circles
 		circles = new ArrayList<Circle>();
+		finishedCircles = new ArrayList<Circle>();
 	}
 
-	// edit data[] byte array to include a string value starting at pos
-	// return the new index value of pos
-	private int edit(byte[] data, String str, int pos) {
-		for (int i = 0; i < str.length(); i++)
-			data[pos++] = (byte) (str.charAt(i));
-		data[pos++] = SEP;
-		return pos;
+	// add player data to send back to client
+	private void addPlayerData(Snapshot out) {
+		for (ClientPlayer client : clientData.values())
+			out.addPlayer(client.name, client.x, client.y, client.R, client.G, client.B, client.score);
 	}
 
-	private int edit(byte[] data, int value, int pos) {
-		return edit(data, Integer.toString(value), pos);
-	}
-
-	// create a byte array to send player data back to client
-	private int addPlayerData(byte[] data, int pos) {
-		for (InetAddress clientAddress : clientData.keySet()) {
-			ClientPlayer client = clientData.get(clientAddress);
-			pos = edit(data, client.name, pos);
-			pos = edit(data, client.x, pos);
-			pos = edit(data, client.y, pos);
-			pos = edit(data, client.R, pos);
-			pos = edit(data, client.G, pos);
-			pos = edit(data, client.B, pos);
-			pos = edit(data, client.score, pos);
-		}
-		data[pos++] = GROUPSEP;
-		// message("Return data to client " + Arrays.toString(ret));
-		return pos;
+	// add circle data to send back to client
+	private void addCircleData(Snapshot out) {
+		for (Circle c : circles)
+			c.addInfo(out);
 	}
 
-	// create a byte array to send circle data back to client
-	private int addCircleData(byte[] data, int pos) {
-		for (Circle c : circles)
-			pos = c.addInfo(data, pos);
-		data[pos++] = GROUPSEP;
-		// message("Return data to client " + Arrays.toString(ret));
-		return pos;
+	// a clock in hundredths of a second, or Snapshot.NOT_SHOWING
+	private int clockData(boolean showing, long ticks) {
+		return showing ? (int) (ticks * 100 / TPS) : Snapshot.NOT_SHOWING;
 	}
 
 	// receive data from client
-	private void receiveData(DatagramPacket clientPacket, InetAddress clientAddress) {
-		String receivedData = new String(clientPacket.getData());
+	private void receiveData(int length, SocketAddress clientAddress) {
+		String receivedData = new String(inData, 0, length);
 		String[] data = receivedData.split(SEP + "");
 		// received data from client
 		if (!clientData.containsKey(clientAddress))
 			clientData.put(clientAddress, new ClientPlayer(data[0]));
 		ClientPlayer client = clientData.get(clientAddress);
-		client.x = data[1];
-		client.y = data[2];
-		client.R = data[3];
-		client.G = data[4];
-		client.B = data[5];
-	}
-
-	// send data back to client
-	private void sendData(InetAddress clientAddress, int clientPort) {
-		// send data back to client
-		// send player and circle information
-		byte[] outData = new byte[1024];
-		int pos = addPlayerData(outData, 0); // player data
-		pos = addCircleData(outData, pos); // circle data
-		if (countDown) { // initial count-down clock data
-			String waitTimeSecs = String.format("%.2f", (waitTime + 0.0) / TPS);
-			pos = edit(outData, waitTimeSecs, pos);
-		}
-		outData[pos++] = GROUPSEP;
-		// game timer data
-		if (!countDown && timer > 0) {
-			String timerSecs = String.format("%.2f", (timer + 0.0) / TPS);
-			pos = edit(outData, timerSecs, pos);
-		}
-		outData[pos++] = GROUPSEP;
-		// create packet with all this data
-		serverPacket = new DatagramPacket(outData, outData.length, clientAddress, clientPort);
 		try {
-			serverSocket.send(serverPacket);
-		} catch (IOException e) {
+			client.x = Snapshot.clamp(Integer.parseInt(data[1]), Snapshot.X_BITS);
+			client.y = Snapshot.clamp(Integer.parseInt(data[2]), Snapshot.Y_BITS);
+			client.R = Snapshot.clamp(Integer.parseInt(data[3]), Snapshot.COLOR_BITS);
+			client.G = Snapshot.clamp(Integer.parseInt(data[4]), Snapshot.COLOR_BITS);
+			client.B = Snapshot.clamp(Integer.parseInt(data[5]), Snapshot.COLOR_BITS);
+			// newest server tick the client had seen, -1 before its first snapshot
+			int seenTick = Integer.parseInt(data[6]);
+			if (seenTick >= 0)
+				client.recordPosition(seenTick);
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
 			e.printStackTrace();
 		}
+	}
+
+	// build the snapshot of player and circle information to send out this tick
+	private void buildSnapshot() {
+		snapshot.clear();
+		snapshot.tick = (int) tickCount; // server tick, echoed back by clients
+		addPlayerData(snapshot); // player data
+		addCircleData(snapshot); // circle data
+		snapshot.countDown = clockData(countDown, waitTime); // initial count-down clock data
+		snapshot.timer = clockData(!countDown && timer > 0, timer); // game timer data
+		snapshotData.reset();
+		snapshot.write(snapshotData);
+	}
+
+	// send the snapshot back to the given clients, which sent packets since their last one
+	private void sendData(HashSet<SocketAddress> clients) {
+		for (SocketAddress clientAddress : clients) {
+			// send all this data, only as long as it needs to be
+			// (if the send buffer is full the snapshot is dropped, same as it could be on the network)
+			try {
+				serverChannel.send(ByteBuffer.wrap(snapshotData.getData(), 0, snapshotData.length()), clientAddress);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		clients.clear();
 		// message("Data sent from Server to client " + clientAddress.getHostAddress());
 	}
 
-	private void tick() {
-		// take in client data
-		// server waiting for client request
-		byte[] inData = new byte[512];
-		DatagramPacket clientPacket = new DatagramPacket(inData, inData.length);
+	// take in client packets until the next tick is due
+	// once the tick is due, only packets that are already waiting are taken (up to MAX_LATE_PACKETS)
+	// returns how long was spent handling them (not waiting for them)
+	private long receivePackets() {
+		long handleTime = 0;
+		int latePackets = 0;
 		try {
-			serverSocket.receive(clientPacket);
+			while (true) {
+				// take every packet that is already waiting
+				SocketAddress clientAddress;
+				inBuffer.clear();
+				while (latePackets < MAX_LATE_PACKETS && (clientAddress = serverChannel.receive(inBuffer)) != null) {
+					long handleStart = System.nanoTime();
+					handlePacket(inBuffer.position(), clientAddress);
+					handleTime += System.nanoTime() - handleStart;
+					if (governor.timeLeft() <= 0)
+						latePackets++;
+					inBuffer.clear();
+				}
+
+				// wait for more until the next tick is due
+				long timeLeft = governor.timeLeft();
+				if (timeLeft <= 0)
+					break;
+				if (timeLeft >= 1000000)
+					selector.select(timeLeft / 1000000); // only takes whole milliseconds
+				else
+					LockSupport.parkNanos(timeLeft);
+				selector.selectedKeys().clear();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		return handleTime;
+	}
 
+	private void handlePacket(int length, SocketAddress clientAddress) {
 		// if game has started don't let anyone else join
 		// although, they can still spectate the game :)
-		InetAddress clientAddress = clientPacket.getAddress();
-		if (countDown || clientData.containsKey(clientAddress))
-			receiveData(clientPacket, clientAddress);
+		// new players are also turned away while the server is overloaded
+		if ((countDown && governor.acceptsJoins()) || clientData.containsKey(clientAddress))
+			receiveData(length, clientAddress);
+		if (clientData.containsKey(clientAddress))
+			replyTo.add(clientAddress);
+		else
+			spectatorReplyTo.add(clientAddress);
+	}
 
+	// score finished circles once every player has reported where they were when their screen showed the
+	// circle finish, so players aren't judged on a position from before they could see it
+	// anyone who still hasn't reported by the time it would fall out of their history is judged on where they are now
+	private void scoreFinishedCircles() {
+		for (int i = finishedCircles.size() - 1; i >= 0; i--) {
+			Circle c = finishedCircles.get(i);
+			boolean ready = tickCount - c.doneTick >= ClientPlayer.HISTORY;
+			if (!ready) {
+				ready = true;
+				for (ClientPlayer p : clientData.values())
+					if (p.newestViewTick < c.doneTick)
+						ready = false;
+			}
+			if (!ready)
+				continue;
+
+			finishedCircles.remove(i);
+			for (ClientPlayer p : clientData.values()) {
+				// check if player (x, y) is in the circle
+				int slot = p.positionAt(c.doneTick);
+				int pX = slot < 0 ? p.x : p.historyX[slot];
+				int pY = slot < 0 ? p.y : p.historyY[slot];
+				int dist = (pX - c.x) * (pX - c.x) + (pY - c.y) * (pY - c.y);
+				if (dist < c.fullRadius * c.fullRadius)
+					p.score += c.addScore[c.difficulty];
+			}
+		}
+	}
+
+	private void tick() {
 		// manage circles
 		// deactivate completed circles
-		for (int i = circles.size() - 1; i >= 0; i--) {
-			Circle c = circles.get(i);
-			if (c.isDone()) {
-				circles.remove(i);
-				if (timer > 0) { // only add score if game is still going on
-					for (InetAddress ip : clientData.keySet()) {
-						ClientPlayer p = clientData.get(ip);
-						int pX = Integer.parseInt(p.x);
-						int pY = Integer.parseInt(p.y);
-						// check if player (x, y) is in the circle
-						int dist = (pX - c.x) * (pX - c.x) + (pY - c.y) * (pY - c.y);
-						if (dist < c.fullRadius * c.fullRadius)
-							p.score += c.addScore[c.difficulty];
+		// when overloaded, circles are only updated every few ticks but grow by that many steps
+		int circleStep = governor.circleStep();
+		if (tickCount % circleStep == 0) {
+			for (int i = circles.size() - 1; i >= 0; i--) {
+				Circle c = circles.get(i);
+				if (c.isDone()) {
+					circles.remove(i);
+					if (timer > 0) { // only add score if game is still going on
+						c.doneTick = tickCount;
+						finishedCircles.add(c);
 					}
-				}
-			} else
-				circles.get(i).tick();
+				} else
+					circles.get(i).tick(circleStep);
+			}
 		}
+		scoreFinishedCircles();
 
 		// create a new circle
 		waitTime--;
@@ -203,9 +273,18 @@ public class Server {
 		}
 
 		// send out data
-		sendData(clientPacket.getAddress(), clientPacket.getPort());
+		// when overloaded, snapshots only go out every few ticks (and even less often to spectators)
+		boolean toPlayers = !replyTo.isEmpty() && tickCount % governor.snapshotInterval() == 0;
+		boolean toSpectators = !spectatorReplyTo.isEmpty() && tickCount % governor.spectatorInterval() == 0;
+		if (toPlayers || toSpectators)
+			buildSnapshot();
+		if (toPlayers)
+			sendData(replyTo);
+		if (toSpectators)
+			sendData(spectatorReplyTo);
 		if (!countDown && timer > 0)
 			timer--;
+		tickCount++;
 	}
 
 	public void run() {
@@ -215,23 +294,141 @@ public class Server {
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
 		}
+		// ticks run on the clock, whether or not any client packets came in
+		governor.start();
 		while (running) {
+			long workTime = receivePackets();
+			long tickStart = System.nanoTime();
 			tick();
-			try {
-				Thread.sleep(1000 / TPS);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			governor.workDone(workTime + System.nanoTime() - tickStart);
+			governor.scheduleNextTick();
+		}
+	}
+
+	// keeps ticks on a fixed schedule and sheds work in steps when they run over budget
+	private class Governor {
+		// degradation levels, each one also does everything the levels before it do
+		static final int NORMAL = 0, FEWER_SNAPSHOTS = 1, COARSE_CIRCLES = 2, NO_JOINS = 3;
+		final String[] levelNames = { "normal", "fewer snapshots", "coarse circles", "no new joins" };
+		// load is work time divided by the tick budget, smoothed over recent ticks
+		static final double SMOOTHING = 0.1;
+		static final double OVERLOAD = 1.0, RECOVERED = 0.5;
+		// ticks load has to stay past a threshold before the level changes
+		final int overloadTicks = TPS / 2, recoverTicks = TPS * 2;
+
+		final long budget = 1000000000L / TPS; // nanoseconds per tick
+		long nextTick; // when the next tick is due, System.nanoTime() based
+		double load = 0;
+		int level = NORMAL;
+		int ticksOver = 0, ticksUnder = 0;
+		// counters
+		long overruns = 0; // ticks whose work alone took longer than the budget
+		long skippedTime = 0; // nanoseconds given up on instead of catching up
+
+		void start() {
+			nextTick = System.nanoTime() + budget;
+		}
+
+		// call at the end of every tick with how long its work took (handling packets and the tick itself)
+		void workDone(long workTime) {
+			if (workTime > budget)
+				overruns++;
+			load += SMOOTHING * ((workTime + 0.0) / budget - load);
+
+			ticksOver = load > OVERLOAD ? ticksOver + 1 : 0;
+			ticksUnder = load < RECOVERED ? ticksUnder + 1 : 0;
+			if (ticksOver >= overloadTicks && level < NO_JOINS)
+				setLevel(level + 1);
+			else if (ticksUnder >= recoverTicks && level > NORMAL)
+				setLevel(level - 1);
+		}
+
+		private void setLevel(int newLevel) {
+			message("Tick load " + String.format("%.2f", load) + ", going from '" + levelNames[level] + "' to '"
+					+ levelNames[newLevel] + "' (" + overruns + " overruns, " + skippedTime / 1000000
+					+ " ms skipped so far)");
+			level = newLevel;
+			ticksOver = 0;
+			ticksUnder = 0;
+		}
+
+		// nanoseconds until the next tick is due
+		long timeLeft() {
+			return nextTick - System.nanoTime();
+		}
+
+		// call after every tick
+		// if the server has fallen more than a tick behind, it starts fresh instead of rushing to catch up
+		void scheduleNextTick() {
+			long now = System.nanoTime();
+			if (now - nextTick > budget) {
+				skippedTime += now - nextTick;
+				nextTick = now;
 			}
+			nextTick += budget;
+		}
+
+		// snapshots are sent every this many ticks
+		int snapshotInterval() {
+			return level >= FEWER_SNAPSHOTS ? 2 : 1;
+		}
+
+		// circles are updated every this many ticks
+		int circleStep() {
+			return level >= COARSE_CIRCLES ? 2 : 1;
+		}
+
+		// snapshots are sent to spectators (and anyone turned away) every this many ticks
+		// they can't be ignored outright, Client waits for a reply to every packet it sends
+		int spectatorInterval() {
+			return level >= NO_JOINS ? TPS / 10 : snapshotInterval();
+		}
+
+		boolean acceptsJoins() {
+			return level < NO_JOINS;
 		}
 	}
 
 	// represents a specific Client
 	private class ClientPlayer {
-		String name, x, y, R, G, B;
+		// ticks of position history kept, must be a power of 2
+		// at 100 TPS this covers 1.28 seconds in 2 KB per player
+		static final int HISTORY = 128;
+
+		String name;
+		int x, y, R, G, B;
 		int score = 0;
 
+		// ring buffer of recent positions indexed by view tick (the server tick of the snapshot the client
+		// was showing when it sent the position), slot (tick % HISTORY) holds the position for that tick
+		final int[] historyX = new int[HISTORY], historyY = new int[HISTORY];
+		final long[] historyTick = new long[HISTORY];
+		long newestViewTick = -1;
+
 		public ClientPlayer(String name) {
 			this.name = name;
+			Arrays.fill(historyTick, Long.MIN_VALUE);
+		}
+
+		// remember the current position as where the player was while looking at the given tick
+		void recordPosition(long viewTick) {
+			int slot = (int) (viewTick & (HISTORY - 1));
+			historyX[slot] = x;
+			historyY[slot] = y;
+			historyTick[slot] = viewTick;
+			newestViewTick = Math.max(newestViewTick, viewTick);
+		}
+
+		// slot in the history for the first view tick at or after the given one that the client reported
+		// (clients don't get a snapshot every tick), or -1 if there is none yet
+		int positionAt(long viewTick) {
+			long tick = Math.max(viewTick, newestViewTick - HISTORY + 1);
+			for (; tick <= newestViewTick; tick++) {
+				int slot = (int) (tick & (HISTORY - 1));
+				if (historyTick[slot] == tick)
+					return slot;
+			}
+			return -1;
 		}
 	}
 
@@ -244,8 +441,6 @@ public class Server {
 		final int[] deploySpeed = { 1, 2, 4, 8, 16 };
 		// score to add to player for each circle difficulty
 		final int[] addScore = { 25, 16, 9, 4, 1 };
-		final Color[] colors = { new Color(248, 131, 121), new Color(236, 88, 0), new Color(255, 49, 49),
-				new Color(196, 30, 58), new Color(112, 41, 99) };
 		public static final int MAX_DIFFICULTY = 5;
 
 		// full radius is the maximum radius this circle will grow to
@@ -256,6 +451,7 @@ public class Server {
 		// difficulty rating goes from 0 to MAX_DIFFICULTY (0 being the easiest)
 		int difficulty;
 		int x, y;
+		long doneTick; // tick this circle finished growing on
 
 		public Circle(int difficulty, int screenWidth, int screenHeight) {
 			this.difficulty = difficulty;
@@ -269,8 +465,9 @@ public class Server {
 			y = rand.nextInt(screenHeight);
 		}
 
-		public void tick() {
-			currentRadius += deploySpeed[difficulty];
+		// grow the circle by the given number of ticks worth
+		public void tick(int steps) {
+			currentRadius += deploySpeed[difficulty] * steps;
 		}
 
 		// check if this circle is done growing
@@ -278,17 +475,10 @@ public class Server {
 			return currentRadius >= fullRadius;
 		}
 
-		// edits byte array to contain circle info such as position, radius, and color
-		// return new index value of pos
-		public int addInfo(byte[] data, int pos) {
-			pos = edit(data, x, pos);
-			pos = edit(data, y, pos);
-			pos = edit(data, fullRadius, pos);
-			pos = edit(data, currentRadius, pos);
-			pos = edit(data, colors[difficulty].getRed(), pos);
-			pos = edit(data, colors[difficulty].getGreen(), pos);
-			pos = edit(data, colors[difficulty].getBlue(), pos);
-			return pos;
+		// adds circle info such as position, radius, and difficulty (clients know its color)
+		// current radius can grow past full radius on the last tick, so it is capped there
+		public void addInfo(Snapshot out) {
+			out.addCircle(x, y, fullRadius, Math.min(currentRadius, fullRadius), difficulty);
 		}
 	}
 
@@ -0,0 +1,254 @@
+import java.awt.Color;
+import java.util.ArrayList;
+
+// bit-packed format for the snapshots the server sends to clients
+// every field only takes up as many bits as its range needs (see Standard Data Protocol)
+// the server fills one in and write()s it, clients read() it back
+public class Snapshot {
+
+	// field sizes in bits
+	public static final int X_BITS = 10; // 0 to 1023, screen width is 1000
+	public static final int Y_BITS = 9; // 0 to 511, screen height is 500
+	public static final int RADIUS_BITS = 9; // 0 to 511, biggest circle radius is under 500
+	public static final int DIFFICULTY_BITS = 3; // 0 to 7, difficulty goes from 0 to 4
+	public static final int COLOR_BITS = 8; // each of R, G and B
+	public static final int CHAR_BITS = 7; // names are sent as ASCII
+	// varints are sent in chunks of this many bits, each followed by a "more" bit
+	public static final int VARINT_CHUNK = 4;
+
+	public static final int MAX_PACKET = 1024;
+
+	// circle color for each difficulty, clients look these up instead of getting RGB sent
+	public static final Color[] CIRCLE_COLORS = { new Color(248, 131, 121), new Color(236, 88, 0),
+			new Color(255, 49, 49), new Color(196, 30, 58), new Color(112, 41, 99) };
+
+	// clock value for a clock that isn't showing
+	public static final int NOT_SHOWING = -1;
+
+	// snapshot data
+	public int tick; // server tick this snapshot was built on, echoed back by clients
+	public ArrayList<PlayerInfo> players = new ArrayList<PlayerInfo>();
+	public ArrayList<CircleInfo> circles = new ArrayList<CircleInfo>();
+	// clocks in hundredths of a second, or NOT_SHOWING
+	public int countDown = NOT_SHOWING; // initial count-down clock before the game starts
+	public int timer = NOT_SHOWING; // game timer clock
+
+	public void clear() {
+		tick = 0;
+		players.clear();
+		circles.clear();
+		countDown = NOT_SHOWING;
+		timer = NOT_SHOWING;
+	}
+
+	public void addPlayer(String name, int x, int y, int R, int G, int B, int score) {
+		players.add(new PlayerInfo(name, x, y, R, G, B, score));
+	}
+
+	public void addCircle(int x, int y, int fullRadius, int currentRadius, int difficulty) {
+		circles.add(new CircleInfo(x, y, fullRadius, currentRadius, difficulty));
+	}
+
+	// writes the whole snapshot, laid out as in Standard Data Protocol
+	public void write(Writer out) {
+		out.writeVarInt(tick);
+		// player data
+		out.writeVarInt(players.size());
+		for (PlayerInfo p : players) {
+			out.writeString(p.name);
+			out.writeBits(p.x, X_BITS);
+			out.writeBits(p.y, Y_BITS);
+			out.writeBits(p.R, COLOR_BITS);
+			out.writeBits(p.G, COLOR_BITS);
+			out.writeBits(p.B, COLOR_BITS);
+			out.writeVarInt(p.score);
+		}
+		// circle data
+		out.writeVarInt(circles.size());
+		for (CircleInfo c : circles) {
+			out.writeBits(c.x, X_BITS);
+			out.writeBits(c.y, Y_BITS);
+			out.writeBits(c.fullRadius, RADIUS_BITS);
+			out.writeBits(c.currentRadius, RADIUS_BITS);
+			out.writeBits(c.difficulty, DIFFICULTY_BITS);
+		}
+		// clock data
+		writeClock(out, countDown);
+		writeClock(out, timer);
+	}
+
+	// a clock is a bit saying whether it is showing, followed by its value only if it is
+	private static void writeClock(Writer out, int clock) {
+		out.writeBit(clock != NOT_SHOWING);
+		if (clock != NOT_SHOWING)
+			out.writeVarInt(clock);
+	}
+
+	private static int readClock(Reader in) {
+		return in.readBit() ? in.readVarInt() : NOT_SHOWING;
+	}
+
+	// reads back a snapshot made by write()
+	public static Snapshot read(byte[] data) {
+		Reader in = new Reader(data);
+		Snapshot snapshot = new Snapshot();
+		snapshot.tick = in.readVarInt();
+		int numPlayers = in.readVarInt();
+		for (int i = 0; i < numPlayers; i++) {
+			String name = in.readString();
+			int x = in.readBits(X_BITS);
+			int y = in.readBits(Y_BITS);
+			int R = in.readBits(COLOR_BITS);
+			int G = in.readBits(COLOR_BITS);
+			int B = in.readBits(COLOR_BITS);
+			snapshot.addPlayer(name, x, y, R, G, B, in.readVarInt());
+		}
+		int numCircles = in.readVarInt();
+		for (int i = 0; i < numCircles; i++) {
+			int x = in.readBits(X_BITS);
+			int y = in.readBits(Y_BITS);
+			int fullRadius = in.readBits(RADIUS_BITS);
+			int currentRadius = in.readBits(RADIUS_BITS);
+			snapshot.addCircle(x, y, fullRadius, currentRadius, in.readBits(DIFFICULTY_BITS));
+		}
+		snapshot.countDown = readClock(in);
+		snapshot.timer = readClock(in);
+		return snapshot;
+	}
+
+	// one player, x and y are the center of the player sprite
+	public static class PlayerInfo {
+		public String name;
+		public int x, y, R, G, B, score;
+
+		public PlayerInfo(String name, int x, int y, int R, int G, int B, int score) {
+			this.name = name;
+			this.x = x;
+			this.y = y;
+			this.R = R;
+			this.G = G;
+			this.B = B;
+			this.score = score;
+		}
+	}
+
+	// one circle, its color comes from CIRCLE_COLORS[difficulty]
+	public static class CircleInfo {
+		public int x, y, fullRadius, currentRadius, difficulty;
+
+		public CircleInfo(int x, int y, int fullRadius, int currentRadius, int difficulty) {
+			this.x = x;
+			this.y = y;
+			this.fullRadius = fullRadius;
+			this.currentRadius = currentRadius;
+			this.difficulty = difficulty;
+		}
+	}
+
+	// keep a value inside what a field of this many bits can hold
+	public static int clamp(int value, int bits) {
+		return Math.max(0, Math.min(value, (1 << bits) - 1));
+	}
+
+	// writes values bit by bit into a byte array, most significant bit first
+	public static class Writer {
+		private byte[] data;
+		private int bitPos = 0;
+
+		public Writer() {
+			this(MAX_PACKET);
+		}
+
+		public Writer(int capacity) {
+			data = new byte[capacity];
+		}
+
+		// write the lowest 'bits' bits of value
+		public void writeBits(int value, int bits) {
+			for (int i = bits - 1; i >= 0; i--) {
+				if (((value >>> i) & 1) != 0)
+					data[bitPos >> 3] |= (byte) (0x80 >>> (bitPos & 7));
+				bitPos++;
+			}
+		}
+
+		public void writeBit(boolean value) {
+			writeBits(value ? 1 : 0, 1);
+		}
+
+		// small values take fewer bits, value must not be negative
+		public void writeVarInt(int value) {
+			do {
+				writeBits(value, VARINT_CHUNK);
+				value >>>= VARINT_CHUNK;
+				writeBit(value != 0);
+			} while (value != 0);
+		}
+
+		// length followed by characters, anything outside ASCII becomes '?'
+		public void writeString(String str) {
+			writeVarInt(str.length());
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+				writeBits(c < 128 ? c : '?', CHAR_BITS);
+			}
+		}
+
+		// number of bytes used so far
+		public int length() {
+			return (bitPos + 7) >> 3;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		// start over, reusing the same byte array
+		public void reset() {
+			for (int i = 0; i < length(); i++)
+				data[i] = 0;
+			bitPos = 0;
+		}
+	}
+
+	// reads back what a Writer wrote
+	public static class Reader {
+		private byte[] data;
+		private int bitPos = 0;
+
+		public Reader(byte[] data) {
+			this.data = data;
+		}
+
+		public int readBits(int bits) {
+			int value = 0;
+			for (int i = 0; i < bits; i++) {
+				value = (value << 1) | ((data[bitPos >> 3] >>> (7 - (bitPos & 7))) & 1);
+				bitPos++;
+			}
+			return value;
+		}
+
+		public boolean readBit() {
+			return readBits(1) == 1;
+		}
+
+		public int readVarInt() {
+			int value = 0, shift = 0;
+			do {
+				value |= readBits(VARINT_CHUNK) << shift;
+				shift += VARINT_CHUNK;
+			} while (readBit());
+			return value;
+		}
+
+		public String readString() {
+			int length = readVarInt();
+			StringBuilder sb = new StringBuilder(length);
+			for (int i = 0; i < length; i++)
+				sb.append((char) readBits(CHAR_BITS));
+			return sb.toString();
+		}
+	}
+
+}
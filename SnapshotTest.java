@@ -0,0 +1,138 @@
+import java.util.Random;
+
+// round-trip checks for Snapshot.write() (used by Server) and Snapshot.read() (used by Client)
+// build and run with: javac *.java && java SnapshotTest
+public class SnapshotTest {
+
+	// field ranges, matching Server.Circle and Client.Player
+	private static final int WIDTH = 1000, HEIGHT = 500;
+	private static final int MAX_RADIUS = 500; // biggest of Server.Circle.maxRadii
+	private static final int MAX_DIFFICULTY = 5;
+	private static final int RUNS = 10000;
+
+	private static Random rand = new Random();
+
+	private static void check(boolean ok, String what, long seed) {
+		if (!ok)
+			throw new AssertionError(what + " did not round trip (seed " + seed + ")");
+	}
+
+	private static String randomName() {
+		StringBuilder sb = new StringBuilder();
+		int length = rand.nextInt(20);
+		for (int i = 0; i < length; i++)
+			sb.append((char) rand.nextInt(128));
+		return sb.toString();
+	}
+
+	// any varint, but mostly small ones like real scores and counts
+	private static int randomVarInt() {
+		return rand.nextBoolean() ? rand.nextInt(300) : rand.nextInt(Integer.MAX_VALUE);
+	}
+
+	// a random snapshot with every field inside the range the server sends
+	private static Snapshot randomSnapshot(int countDown, int timer) {
+		Snapshot snapshot = new Snapshot();
+		snapshot.tick = randomVarInt();
+		int numPlayers = rand.nextInt(8);
+		for (int i = 0; i < numPlayers; i++)
+			snapshot.addPlayer(randomName(), rand.nextInt(WIDTH), rand.nextInt(HEIGHT), rand.nextInt(256),
+					rand.nextInt(256), rand.nextInt(256), randomVarInt());
+		int numCircles = rand.nextInt(20);
+		for (int i = 0; i < numCircles; i++) {
+			int fullRadius = rand.nextInt(MAX_RADIUS);
+			snapshot.addCircle(rand.nextInt(WIDTH), rand.nextInt(HEIGHT), fullRadius, rand.nextInt(fullRadius + 1),
+					rand.nextInt(MAX_DIFFICULTY));
+		}
+		snapshot.countDown = countDown;
+		snapshot.timer = timer;
+		return snapshot;
+	}
+
+	// a clock that is showing (hundredths of a second, up to the 15 second game timer) or not
+	private static int randomClock(Random r) {
+		return r.nextBoolean() ? r.nextInt(1501) : Snapshot.NOT_SHOWING;
+	}
+
+	// writes a snapshot the way Server does and reads it back the way Client does
+	private static void snapshotRoundTrip(Snapshot.Writer out, long seed, int countDown, int timer) {
+		rand.setSeed(seed);
+		Snapshot sent = randomSnapshot(countDown, timer);
+		out.reset();
+		sent.write(out);
+		Snapshot got = Snapshot.read(out.getData());
+
+		check(got.tick == sent.tick, "tick", seed);
+		check(got.players.size() == sent.players.size(), "player count", seed);
+		for (int i = 0; i < sent.players.size(); i++) {
+			Snapshot.PlayerInfo a = sent.players.get(i), b = got.players.get(i);
+			check(b.name.equals(a.name), "name", seed);
+			check(b.x == a.x, "player x", seed);
+			check(b.y == a.y, "player y", seed);
+			check(b.R == a.R, "player R", seed);
+			check(b.G == a.G, "player G", seed);
+			check(b.B == a.B, "player B", seed);
+			check(b.score == a.score, "score", seed);
+		}
+		check(got.circles.size() == sent.circles.size(), "circle count", seed);
+		for (int i = 0; i < sent.circles.size(); i++) {
+			Snapshot.CircleInfo a = sent.circles.get(i), b = got.circles.get(i);
+			check(b.x == a.x, "circle x", seed);
+			check(b.y == a.y, "circle y", seed);
+			check(b.fullRadius == a.fullRadius, "full radius", seed);
+			check(b.currentRadius == a.currentRadius, "current radius", seed);
+			check(b.difficulty == a.difficulty, "difficulty", seed);
+		}
+		check(got.countDown == sent.countDown, "count-down clock", seed);
+		check(got.timer == sent.timer, "game timer", seed);
+	}
+
+	// hidden clocks are only a flag bit, so hiding one has to make the snapshot smaller
+	private static void hiddenClocks() {
+		Snapshot snapshot = new Snapshot();
+		Snapshot.Writer out = new Snapshot.Writer();
+		snapshot.write(out);
+		int hidden = out.length();
+		snapshot.countDown = 1000;
+		snapshot.timer = 1500;
+		out.reset();
+		snapshot.write(out);
+		check(out.length() > hidden, "hidden clocks", 0);
+	}
+
+	// the biggest value of every field has to fit in its bits
+	private static void rangesFit() {
+		check(WIDTH - 1 == Snapshot.clamp(WIDTH - 1, Snapshot.X_BITS), "widest x", 0);
+		check(HEIGHT - 1 == Snapshot.clamp(HEIGHT - 1, Snapshot.Y_BITS), "tallest y", 0);
+		check(MAX_RADIUS == Snapshot.clamp(MAX_RADIUS, Snapshot.RADIUS_BITS), "biggest radius", 0);
+		check(MAX_DIFFICULTY - 1 == Snapshot.clamp(MAX_DIFFICULTY - 1, Snapshot.DIFFICULTY_BITS), "hardest difficulty", 0);
+		check(Snapshot.CIRCLE_COLORS.length == MAX_DIFFICULTY, "circle colors", 0);
+		check(Snapshot.clamp(-5, Snapshot.X_BITS) == 0, "clamp below", 0);
+		check(Snapshot.clamp(5000, Snapshot.X_BITS) == (1 << Snapshot.X_BITS) - 1, "clamp above", 0);
+	}
+
+	// non-ASCII names are sent with '?' in place of the characters that don't fit
+	private static void nonAsciiName() {
+		Snapshot.Writer out = new Snapshot.Writer();
+		out.writeString("h\u00e9llo");
+		check(new Snapshot.Reader(out.getData()).readString().equals("h?llo"), "non-ASCII name", 0);
+	}
+
+	public static void main(String[] args) {
+		rangesFit();
+		nonAsciiName();
+		hiddenClocks();
+		// one writer for every run, so reset() is checked too
+		Snapshot.Writer out = new Snapshot.Writer();
+		Random seeds = new Random();
+		// every mix of shown and hidden clocks
+		int[][] clocks = { { 1000, 500 }, { 1000, Snapshot.NOT_SHOWING }, { Snapshot.NOT_SHOWING, 500 },
+				{ Snapshot.NOT_SHOWING, Snapshot.NOT_SHOWING } };
+		for (int[] c : clocks)
+			snapshotRoundTrip(out, seeds.nextLong(), c[0], c[1]);
+		for (int i = 0; i < RUNS; i++)
+			snapshotRoundTrip(out, seeds.nextLong(), randomClock(seeds), randomClock(seeds));
+		System.out.println("SnapshotTest: all " + RUNS + " round trips passed");
+	}
+
+}